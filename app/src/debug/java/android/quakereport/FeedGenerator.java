@@ -0,0 +1,189 @@
+package android.quakereport;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes synthetic earthquake feeds in the GeoJSON format served by the USGS API. Output is
+ * streamed feature by feature so feeds with millions of events never have to fit in memory, and
+ * the same seed always produces the same feed.
+ */
+class FeedGenerator {
+
+    /**
+     * Smallest magnitude generated, the same cut off as the USGS significant feeds
+     */
+    private static final double MIN_MAGNITUDE = 2.5;
+
+    /**
+     * Largest magnitude generated
+     */
+    private static final double MAX_MAGNITUDE = 9.5;
+
+    /**
+     * Time of the most recent generated event, events go back one minute at a time from here
+     */
+    private static final long LATEST_TIME = 1475280000000L;
+
+    private static final String[] DIRECTIONS = {
+            "N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+            "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"
+    };
+
+    private static final String[] PLACES = {
+            "Cairo, Egypt", "Hualien, Taiwan", "Ishinomaki, Japan", "Petrolia, California",
+            "Valparaiso, Chile", "Port-Vila, Vanuatu", "Kokopo, Papua New Guinea",
+            "Anchorage, Alaska", "Reykjavik, Iceland", "Padang, Indonesia", "Lima, Peru",
+            "Christchurch, New Zealand", "Tonga", "Fiji region", "Pacific-Antarctic Ridge"
+    };
+
+    private static final String[] NETWORKS = {"us", "ci", "ak", "nc", "hv", "uw"};
+
+    private static final String[] MAGNITUDE_TYPES = {"mb", "ml", "mww", "md"};
+
+    /**
+     * Number of events in each feed
+     */
+    private final int eventCount;
+
+    /**
+     * Whether to indent the output the way the USGS site does for browsers
+     */
+    private final boolean pretty;
+
+    /**
+     * Seed for the random values of every feed
+     */
+    private final long seed;
+
+    /**
+     * Construct a new {@link FeedGenerator} object
+     * @param eventCount is the number of events in each feed
+     * @param pretty is whether to indent the output
+     * @param seed is the seed for the random values of every feed
+     */
+    FeedGenerator(int eventCount, boolean pretty, long seed) {
+        this.eventCount = eventCount;
+        this.pretty = pretty;
+        this.seed = seed;
+    }
+
+    /**
+     * Write a complete feed
+     * @param writer the writer to write the feed to
+     * @throws IOException if the writer fails
+     */
+    void write(Writer writer) throws IOException {
+        write(writer, -1);
+    }
+
+    /**
+     * Write a feed, optionally cutting it off in the middle of a feature
+     * @param writer the writer to write the feed to
+     * @param truncateAt the index of the feature to cut the feed off in, or -1 for a complete feed
+     * @throws IOException if the writer fails
+     * @throws IllegalArgumentException if the feed has no feature at the truncate index
+     */
+    void write(Writer writer, int truncateAt) throws IOException {
+        if (truncateAt >= eventCount) {
+            throw new IllegalArgumentException("Cannot truncate at feature " + truncateAt
+                    + " of a feed with " + eventCount + " features");
+        }
+
+        Random random = new Random(seed);
+
+        writer.write("{");
+        newLine(writer, 1);
+        writer.write("\"type\":\"FeatureCollection\",");
+        newLine(writer, 1);
+        writer.write(String.format(Locale.US,
+                "\"metadata\":{\"generated\":%d,\"url\":\"http://localhost/fdsnws/event/1/query\","
+                        + "\"title\":\"Synthetic USGS Earthquakes\",\"status\":200,\"api\":\"1.5.2\","
+                        + "\"limit\":%d,\"offset\":1,\"count\":%d},",
+                LATEST_TIME, eventCount, eventCount));
+        newLine(writer, 1);
+        writer.write("\"features\":[");
+
+        for (int i = 0; i < eventCount; i++) {
+            String feature = createFeature(random, i);
+            newLine(writer, 2);
+            if (i == truncateAt) {
+                writer.write(feature.substring(0, feature.length() / 2));
+                return;
+            }
+
+            writer.write(feature);
+            if (i < eventCount - 1) {
+                writer.write(",");
+            }
+        }
+
+        newLine(writer, 1);
+        writer.write("],");
+        newLine(writer, 1);
+        writer.write("\"bbox\":[-179.9,-60.0,0.0,179.9,70.0,650.0]");
+        newLine(writer, 0);
+        writer.write("}");
+        newLine(writer, 0);
+    }
+
+    /**
+     * Create a single feature with the same properties as a USGS event
+     * @param random the random source of the feed
+     * @param index the position of the feature in the feed
+     * @return the feature as a JSON string
+     */
+    private String createFeature(Random random, int index) {
+        // Gutenberg-Richter distribution with a b-value of 1, so each whole magnitude step
+        // is ten times rarer than the one below it
+        double magnitude = MIN_MAGNITUDE - Math.log10(1.0 - random.nextDouble());
+        magnitude = Math.min(Math.round(magnitude * 10) / 10.0, MAX_MAGNITUDE);
+
+        long time = LATEST_TIME - index * 60000L - random.nextInt(60000);
+        String network = NETWORKS[random.nextInt(NETWORKS.length)];
+        String code = String.format(Locale.US, "%s%08d", network, index);
+        String place = PLACES[random.nextInt(PLACES.length)];
+        if (random.nextInt(4) != 0) {
+            place = (1 + random.nextInt(300)) + "km "
+                    + DIRECTIONS[random.nextInt(DIRECTIONS.length)] + " of " + place;
+        }
+
+        double longitude = random.nextDouble() * 360.0 - 180.0;
+        double latitude = random.nextDouble() * 130.0 - 60.0;
+        double depth = random.nextDouble() * 650.0;
+        String url = "http://earthquake.usgs.gov/earthquakes/eventpage/" + code;
+
+        return String.format(Locale.US,
+                "{\"type\":\"Feature\",\"properties\":{\"mag\":%.1f,\"place\":\"%s\",\"time\":%d,"
+                        + "\"updated\":%d,\"tz\":%d,\"url\":\"%s\",\"detail\":\"%s.geojson\","
+                        + "\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null,"
+                        + "\"status\":\"reviewed\",\"tsunami\":%d,\"sig\":%d,\"net\":\"%s\","
+                        + "\"code\":\"%s\",\"ids\":\",%s,\",\"sources\":\",%s,\","
+                        + "\"types\":\",geoserve,origin,phase-data,\",\"nst\":%d,\"dmin\":%.3f,"
+                        + "\"rms\":%.2f,\"gap\":%d,\"magType\":\"%s\",\"type\":\"earthquake\","
+                        + "\"title\":\"M %.1f - %s\"},\"geometry\":{\"type\":\"Point\","
+                        + "\"coordinates\":[%.4f,%.4f,%.2f]},\"id\":\"%s\"}",
+                magnitude, place, time, time + random.nextInt(86400000), -600 + random.nextInt(1200),
+                url, url, magnitude >= 7.0 ? 1 : 0, (int) (magnitude * magnitude * 10), network,
+                code, code, network, 10 + random.nextInt(200), random.nextDouble() * 10,
+                random.nextDouble(), random.nextInt(360),
+                MAGNITUDE_TYPES[random.nextInt(MAGNITUDE_TYPES.length)], magnitude, place,
+                longitude, latitude, depth, code);
+    }
+
+    /**
+     * Start a new line at the given indent when writing pretty output
+     */
+    private void newLine(Writer writer, int indent) throws IOException {
+        if (!pretty) {
+            return;
+        }
+
+        writer.write("\n");
+        for (int i = 0; i < indent; i++) {
+            writer.write("  ");
+        }
+    }
+}
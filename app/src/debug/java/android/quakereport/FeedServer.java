@@ -0,0 +1,368 @@
+package android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the USGS query API. Every request is answered with a feed from a
+ * {@link FeedGenerator}, whatever its query parameters, and the response can be slowed down or
+ * broken on purpose to exercise the error paths of {@link QueryUtils}. Configure the server with
+ * its setters before calling {@link #start()}.
+ */
+class FeedServer {
+
+    private static final String LOG_TAG = FeedServer.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of the pieces the response is written in when bandwidth is capped or dripping
+     */
+    private static final int THROTTLE_CHUNK_BYTES = 1024;
+
+    private static final int DRIP_CHUNK_BYTES = 16;
+
+    /**
+     * Faults that can be injected into a response
+     */
+    enum Fault {
+        /** The response is served normally */
+        NONE,
+        /** The connection is closed half way through the body */
+        TRUNCATED_BODY,
+        /** The server answers with a 503 and no feed */
+        SERVER_ERROR,
+        /** The body is sent a few bytes at a time at the drip rate */
+        SLOW_DRIP
+    }
+
+    private final FeedGenerator generator;
+
+    private final int eventCount;
+
+    private ServerSocket serverSocket;
+
+    private ExecutorService executor;
+
+    private final Random random = new Random();
+
+    private boolean gzip;
+
+    private long latencyMillis;
+
+    private int bytesPerSecond;
+
+    private int dripBytesPerSecond = 64;
+
+    private Fault fault = Fault.NONE;
+
+    private double faultRate;
+
+    /**
+     * Construct a new {@link FeedServer} object
+     * @param eventCount is the number of events in each feed
+     * @param pretty is whether to indent the feed
+     */
+    FeedServer(int eventCount, boolean pretty) {
+        this.eventCount = eventCount;
+        this.generator = new FeedGenerator(eventCount, pretty, 42L);
+    }
+
+    /**
+     * Compress responses for clients that accept gzip
+     */
+    void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Delay every response by the given time before the headers are sent
+     */
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Cap the rate the body is sent at, 0 means no cap
+     */
+    void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Rate the body is sent at when {@link Fault#SLOW_DRIP} is injected
+     */
+    void setDripBytesPerSecond(int dripBytesPerSecond) {
+        this.dripBytesPerSecond = dripBytesPerSecond;
+    }
+
+    /**
+     * Inject the given fault into a share of the responses
+     * @param fault the fault to inject
+     * @param faultRate the share of responses between 0 and 1 that get the fault
+     * @throws IllegalArgumentException if the feed is empty and the fault is a truncated body
+     */
+    void setFault(Fault fault, double faultRate) {
+        if (fault == Fault.TRUNCATED_BODY && eventCount == 0) {
+            throw new IllegalArgumentException("An empty feed has no feature to truncate");
+        }
+
+        this.fault = fault;
+        this.faultRate = faultRate;
+    }
+
+    /**
+     * Start listening on a free port of the loopback interface
+     * @throws IOException if the server socket cannot be opened
+     */
+    void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Stop listening and drop the open connections
+     */
+    void stop() {
+        executor.shutdownNow();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem closing the server socket", e);
+        }
+    }
+
+    /**
+     * Returns the URL to query the server at.
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/fdsnws/event/1/query";
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.e(LOG_TAG, "Problem accepting a connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer a single request, then close the connection
+     * @param socket the client connection
+     */
+    private void handleConnection(Socket socket) {
+        try {
+            boolean acceptsGzip = readRequest(socket);
+            Fault currentFault = nextFault();
+
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+
+            OutputStream socketOut = new BufferedOutputStream(socket.getOutputStream());
+            if (currentFault == Fault.SERVER_ERROR) {
+                socketOut.write(("HTTP/1.1 503 Service Unavailable\r\n"
+                        + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes(UTF_8));
+                socketOut.flush();
+                return;
+            }
+
+            boolean compress = gzip && acceptsGzip;
+            StringBuilder headers = new StringBuilder("HTTP/1.1 200 OK\r\n")
+                    .append("Content-Type: application/json;charset=utf-8\r\n")
+                    .append("Transfer-Encoding: chunked\r\n")
+                    .append("Connection: close\r\n");
+            if (compress) {
+                headers.append("Content-Encoding: gzip\r\n");
+            }
+            headers.append("\r\n");
+            socketOut.write(headers.toString().getBytes(UTF_8));
+
+            // Stack the body streams so the throttle sees the bytes that go on the wire
+            OutputStream wire = socketOut;
+            if (currentFault == Fault.SLOW_DRIP) {
+                wire = new ThrottledOutputStream(wire, dripBytesPerSecond, DRIP_CHUNK_BYTES);
+            } else if (bytesPerSecond > 0) {
+                wire = new ThrottledOutputStream(wire, bytesPerSecond, THROTTLE_CHUNK_BYTES);
+            }
+
+            ChunkedOutputStream chunked = new ChunkedOutputStream(wire);
+            OutputStream body = compress ? new GZIPOutputStream(chunked) : chunked;
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(body, UTF_8));
+
+            if (currentFault == Fault.TRUNCATED_BODY) {
+                generator.write(writer, eventCount / 2);
+                // Neither finish the gzip stream nor write the final chunk, so the client sees
+                // the connection drop mid body whether or not the body is compressed
+                writer.flush();
+                chunked.flush();
+            } else {
+                generator.write(writer);
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Connection dropped while serving the feed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing the connection", e);
+            }
+        }
+    }
+
+    /**
+     * Read the request line and headers
+     * @param socket the client connection
+     * @return whether the client accepts gzip encoded responses
+     * @throws IOException if reading the request fails
+     */
+    private boolean readRequest(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+        boolean acceptsGzip = false;
+        String line = reader.readLine();
+        while (line != null && line.length() > 0) {
+            String lowerCaseLine = line.toLowerCase();
+            if (lowerCaseLine.startsWith("accept-encoding:") && lowerCaseLine.contains("gzip")) {
+                acceptsGzip = true;
+            }
+            line = reader.readLine();
+        }
+
+        return acceptsGzip;
+    }
+
+    private synchronized Fault nextFault() {
+        if (fault != Fault.NONE && random.nextDouble() < faultRate) {
+            return fault;
+        }
+
+        return Fault.NONE;
+    }
+
+    /**
+     * Writes everything in HTTP/1.1 chunks. {@link #close()} writes the final empty chunk.
+     */
+    private static class ChunkedOutputStream extends FilterOutputStream {
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+
+            out.write((Integer.toHexString(len) + "\r\n").getBytes(UTF_8));
+            out.write(b, off, len);
+            out.write("\r\n".getBytes(UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write("0\r\n\r\n".getBytes(UTF_8));
+            super.close();
+        }
+    }
+
+    /**
+     * Writes no faster than the given rate, flushing after every piece. The pace is kept against
+     * the total bytes written since the first write, so short sleeps and small writes such as
+     * chunk headers do not add up to a different rate.
+     */
+    private static class ThrottledOutputStream extends FilterOutputStream {
+
+        private static final long NANOS_PER_SECOND = 1000000000L;
+
+        private static final long NANOS_PER_MILLI = 1000000L;
+
+        private final int bytesPerSecond;
+
+        private final int chunkBytes;
+
+        private long startNanos = -1;
+
+        private long bytesWritten;
+
+        ThrottledOutputStream(OutputStream out, int bytesPerSecond, int chunkBytes) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+            this.chunkBytes = chunkBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (startNanos < 0) {
+                startNanos = System.nanoTime();
+            }
+
+            while (len > 0) {
+                int count = Math.min(len, chunkBytes);
+                out.write(b, off, count);
+                out.flush();
+                off += count;
+                len -= count;
+                bytesWritten += count;
+
+                // Sleep until the time the bytes written so far are due at the configured rate
+                long dueNanos = startNanos + bytesWritten * NANOS_PER_SECOND / bytesPerSecond;
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    try {
+                        Thread.sleep(waitNanos / NANOS_PER_MILLI, (int) (waitNanos % NANOS_PER_MILLI));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while throttling", e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package android.quakereport;
+
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+/**
+ * Debug only screen that runs a {@link SoakTestRunner} against a local {@link FeedServer} and shows
+ * the report. The run is configured with intent extras, for example
+ * <pre>
+ * adb shell am start -n android.quakereport/.SoakTestActivity \
+ *     --ei events 100000 --ei iterations 50 --ez gzip true \
+ *     --es fault TRUNCATED_BODY --ef fault_rate 0.1
+ * </pre>
+ * Pass a {@code url} extra to soak an existing server, such as the USGS API, instead.
+ * The run outlives configuration changes, a recreated activity attaches to the running test
+ * rather than starting a second one. A new launch while a test is running is turned away.
+ */
+public class SoakTestActivity extends AppCompatActivity {
+
+    private static final String LOG_TAG = SoakTestActivity.class.getSimpleName();
+
+    /**
+     * Key of the report text in the saved instance state
+     */
+    private static final String REPORT_KEY = "report";
+
+    /**
+     * The soak test in progress, only touched on the main thread
+     */
+    private static SoakTestTask runningTask;
+
+    /**
+     * TextView that shows the progress and the report
+     */
+    private TextView reportTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        reportTextView = new TextView(this);
+        reportTextView.setText(R.string.soak_test_running);
+        setContentView(reportTextView);
+
+        if (savedInstanceState != null) {
+            if (runningTask != null) {
+                // Recreated while the test is still running, so wait for the same run
+                runningTask.attach(this);
+            } else {
+                // Recreated after the test finished, so show its report again
+                reportTextView.setText(savedInstanceState.getString(REPORT_KEY));
+            }
+            return;
+        }
+
+        if (runningTask != null) {
+            // A new launch would report the earlier run, not its own configuration
+            reportTextView.setText(R.string.soak_test_already_running);
+            return;
+        }
+
+        String error = validateExtras(getIntent());
+        if (error != null) {
+            reportTextView.setText(error);
+            return;
+        }
+
+        runningTask = new SoakTestTask(this);
+        runningTask.execute(getIntent());
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(REPORT_KEY, reportTextView.getText().toString());
+    }
+
+    /**
+     * Check the extras that configure the run, so a bad launch shows an error instead of
+     * crashing the background thread
+     * @param intent the intent that launched the activity
+     * @return the error message, or null if the extras are valid
+     */
+    private String validateExtras(Intent intent) {
+        if (intent.getIntExtra("iterations", 100) <= 0) {
+            return getString(R.string.soak_test_invalid_iterations);
+        }
+
+        if (intent.getStringExtra("url") != null) {
+            return null;
+        }
+
+        int events = intent.getIntExtra("events", 1000);
+        if (events < 0) {
+            return getString(R.string.soak_test_invalid_events);
+        }
+
+        // The server threads would crash on a negative sleep or a drip rate of 0
+        if (intent.getIntExtra("latency_ms", 0) < 0 || intent.getIntExtra("bytes_per_second", 0) < 0
+                || intent.getIntExtra("drip_bytes_per_second", 64) <= 0) {
+            return getString(R.string.soak_test_invalid_network);
+        }
+
+        String fault = intent.getStringExtra("fault");
+        if (fault == null) {
+            return null;
+        }
+
+        FeedServer.Fault parsedFault;
+        try {
+            parsedFault = FeedServer.Fault.valueOf(fault);
+        } catch (IllegalArgumentException e) {
+            return getString(R.string.soak_test_invalid_fault, fault);
+        }
+
+        float faultRate = intent.getFloatExtra("fault_rate", 1f);
+        if (faultRate < 0f || faultRate > 1f) {
+            return getString(R.string.soak_test_invalid_fault_rate);
+        }
+
+        if (parsedFault == FeedServer.Fault.TRUNCATED_BODY && events == 0) {
+            return getString(R.string.soak_test_truncate_empty);
+        }
+
+        return null;
+    }
+
+    /**
+     * Runs the soak test off the activity, holding only a weak reference to the activity that
+     * shows the report so a destroyed activity is not leaked for the length of the run.
+     */
+    private static class SoakTestTask extends AsyncTask<Intent, Void, String> {
+
+        private WeakReference<SoakTestActivity> activityReference;
+
+        SoakTestTask(SoakTestActivity activity) {
+            attach(activity);
+        }
+
+        /**
+         * Show the report in the given activity once the test is done
+         */
+        void attach(SoakTestActivity activity) {
+            activityReference = new WeakReference<>(activity);
+        }
+
+        @Override
+        protected String doInBackground(Intent... intents) {
+            Intent intent = intents[0];
+            int iterations = intent.getIntExtra("iterations", 100);
+
+            String url = intent.getStringExtra("url");
+            if (url != null) {
+                return new SoakTestRunner(url, iterations, -1).run();
+            }
+
+            int events = intent.getIntExtra("events", 1000);
+            FeedServer server = new FeedServer(events, intent.getBooleanExtra("pretty", false));
+            server.setGzip(intent.getBooleanExtra("gzip", false));
+            server.setLatencyMillis(intent.getIntExtra("latency_ms", 0));
+            server.setBytesPerSecond(intent.getIntExtra("bytes_per_second", 0));
+            server.setDripBytesPerSecond(intent.getIntExtra("drip_bytes_per_second", 64));
+
+            String fault = intent.getStringExtra("fault");
+            if (fault != null) {
+                server.setFault(FeedServer.Fault.valueOf(fault), intent.getFloatExtra("fault_rate", 1f));
+            }
+
+            try {
+                server.start();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to start the feed server", e);
+                return null;
+            }
+
+            try {
+                return new SoakTestRunner(server.getUrl(), iterations, events).run();
+            } finally {
+                server.stop();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String report) {
+            runningTask = null;
+
+            SoakTestActivity activity = activityReference.get();
+            if (activity == null) {
+                return;
+            }
+
+            if (report == null) {
+                activity.reportTextView.setText(R.string.soak_test_server_error);
+            } else {
+                activity.reportTextView.setText(report);
+            }
+        }
+    }
+}
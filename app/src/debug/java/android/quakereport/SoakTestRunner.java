@@ -0,0 +1,141 @@
+package android.quakereport;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Drives {@link QueryUtils#fetchEarthquakeData(String)} against a URL over and over and reports
+ * throughput, latency percentiles and heap growth. Run it on a background thread.
+ */
+class SoakTestRunner {
+
+    private static final String LOG_TAG = SoakTestRunner.class.getSimpleName();
+
+    /**
+     * Number of requests between two heap samples
+     */
+    private static final int HEAP_SAMPLE_INTERVAL = 10;
+
+    /**
+     * Query URL
+     */
+    private final String url;
+
+    /**
+     * Number of requests to make
+     */
+    private final int iterations;
+
+    /**
+     * Number of earthquakes a complete response holds, or -1 if it is not known
+     */
+    private final int expectedEvents;
+
+    /**
+     * Construct a new {@link SoakTestRunner} object
+     * @param url is the URL to load the earthquakes from
+     * @param iterations is the number of requests to make
+     * @param expectedEvents is the number of earthquakes a complete response holds, or -1 if it
+     *                       is not known
+     */
+    SoakTestRunner(String url, int iterations, int expectedEvents) {
+        this.url = url;
+        this.iterations = iterations;
+        this.expectedEvents = expectedEvents;
+    }
+
+    /**
+     * Make all the requests and summarize them
+     * @return a human readable report of the run
+     */
+    String run() {
+        long[] latencies = new long[iterations];
+        int failures = 0;
+        long events = 0;
+
+        long heapBefore = usedHeap();
+        long peakHeap = heapBefore;
+        long samplingMillis = 0;
+        long start = SystemClock.elapsedRealtime();
+
+        for (int i = 0; i < iterations; i++) {
+            long requestStart = SystemClock.elapsedRealtime();
+            List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url);
+            latencies[i] = SystemClock.elapsedRealtime() - requestStart;
+
+            if (isComplete(earthquakes)) {
+                events += earthquakes.size();
+            } else {
+                failures++;
+            }
+
+            if ((i + 1) % HEAP_SAMPLE_INTERVAL == 0) {
+                long samplingStart = SystemClock.elapsedRealtime();
+                peakHeap = Math.max(peakHeap, usedHeap());
+                Log.d(LOG_TAG, "Completed " + (i + 1) + " of " + iterations + " requests");
+                samplingMillis += SystemClock.elapsedRealtime() - samplingStart;
+            }
+        }
+
+        // Leave out the forced garbage collections of the heap samples, so the throughput does
+        // not depend on the sample interval
+        long elapsed = Math.max(SystemClock.elapsedRealtime() - start - samplingMillis, 1);
+        long heapAfter = usedHeap();
+        peakHeap = Math.max(peakHeap, heapAfter);
+        Arrays.sort(latencies);
+
+        String report = String.format(Locale.US,
+                "requests: %d (%d failed)%n"
+                        + "throughput: %.1f requests/s, %.0f events/s%n"
+                        + "latency ms: p50 %d, p90 %d, p99 %d, max %d%n"
+                        + "heap KB: before %d, after %d, growth %d, peak %d",
+                iterations, failures,
+                iterations * 1000.0 / elapsed, events * 1000.0 / elapsed,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                iterations > 0 ? latencies[iterations - 1] : 0,
+                heapBefore / 1024, heapAfter / 1024, (heapAfter - heapBefore) / 1024, peakHeap / 1024);
+        Log.i(LOG_TAG, report);
+        return report;
+    }
+
+    /**
+     * Returns whether a response holds every earthquake. A failed request comes back as null,
+     * while a body that does not parse comes back as an empty or short list.
+     */
+    private boolean isComplete(List<Earthquake> earthquakes) {
+        if (earthquakes == null) {
+            return false;
+        }
+
+        if (expectedEvents < 0) {
+            return !earthquakes.isEmpty();
+        }
+
+        return earthquakes.size() >= expectedEvents;
+    }
+
+    /**
+     * Returns the value at the given percentile of a sorted array, using the nearest rank.
+     */
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Returns the heap in use after a garbage collection, so that only live objects are counted.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
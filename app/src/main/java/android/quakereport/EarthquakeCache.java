@@ -0,0 +1,603 @@
+package android.quakereport;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Three tier cache for the earthquake lists loaded by {@link EarthquakeLoader}, keyed by query URL.
+ * Lists start in the hot tier as live objects, get demoted to a compact serialized form in the
+ * warm tier, and finally spill to files on disk in the cold tier. Demotion happens when a tier
+ * goes over its byte budget, or when the system reports memory pressure. The cold tier only lives
+ * as long as the process, so when the process is about to be killed the cache drops its lists
+ * instead of spilling them. The hot tier holds whole
+ * lists rather than just the rows on screen, since the {@link EarthquakeAdapter} needs the whole
+ * list anyway. Entries older than the max age are treated as missing so the feed stays current.
+ * All disk work runs on a single background thread.
+ */
+class EarthquakeCache implements ComponentCallbacks2 {
+
+    private static final String LOG_TAG = EarthquakeCache.class.getSimpleName();
+
+    /**
+     * Name of the directory inside the app cache dir that holds the cold tier
+     */
+    private static final String COLD_DIR_NAME = "earthquakes";
+
+    /**
+     * Rough per object overhead used when estimating the heap size of a hot list
+     */
+    private static final int OBJECT_OVERHEAD_BYTES = 16;
+
+    private static EarthquakeCache instance;
+
+    /**
+     * Hot tier, live {@link Earthquake} lists sized by their estimated heap usage
+     */
+    private final LruCache<String, Entry> hot;
+
+    /**
+     * Warm tier, serialized lists sized by their byte length
+     */
+    private final LruCache<String, byte[]> warm;
+
+    /**
+     * Directory holding the cold tier
+     */
+    private final File coldDir;
+
+    /**
+     * Time in milliseconds after which a cached list is no longer served
+     */
+    private final long maxAgeMillis;
+
+    /**
+     * Serial executor for every disk read, write and delete, so reads see earlier spills
+     */
+    private final Executor diskExecutor;
+
+    /**
+     * Whether evicted lists are dropped instead of demoted to the next tier
+     */
+    private boolean dropOnEvict;
+
+    private int hotHits;
+    private int warmHits;
+    private int coldHits;
+    private int misses;
+    private int hotEvictions;
+    private int warmEvictions;
+    private int drops;
+
+    /**
+     * Construct a new {@link EarthquakeCache} object
+     * @param coldDir the directory to spill the cold tier into, it is cleared on creation
+     * @param hotBudgetBytes the heap budget of the hot tier in bytes
+     * @param warmBudgetBytes the heap budget of the warm tier in bytes
+     * @param maxAgeMillis the time in milliseconds after which a cached list is no longer served
+     * @param diskExecutor the serial executor to run disk work on
+     */
+    EarthquakeCache(File coldDir, int hotBudgetBytes, int warmBudgetBytes, long maxAgeMillis,
+                    Executor diskExecutor) {
+        this.coldDir = coldDir;
+        this.maxAgeMillis = maxAgeMillis;
+        this.diskExecutor = diskExecutor;
+        clearColdDir();
+
+        hot = new LruCache<String, Entry>(hotBudgetBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return estimateSize(entry.earthquakes);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                if (!evicted) {
+                    return;
+                }
+
+                if (dropOnEvict) {
+                    drops++;
+                    return;
+                }
+
+                hotEvictions++;
+                byte[] bytes = serialize(oldValue);
+                if (bytes != null) {
+                    warm.put(key, bytes);
+                }
+            }
+        };
+
+        warm = new LruCache<String, byte[]>(warmBudgetBytes) {
+            @Override
+            protected int sizeOf(String key, byte[] bytes) {
+                return bytes.length;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, byte[] oldValue, byte[] newValue) {
+                if (!evicted) {
+                    return;
+                }
+
+                if (dropOnEvict) {
+                    drops++;
+                    return;
+                }
+
+                warmEvictions++;
+                writeCold(key, oldValue);
+            }
+        };
+    }
+
+    /**
+     * Returns the shared cache, creating it on first use. The tier budgets, as a share of the
+     * heap, and the max age come from the cache integer resources. The cache listens to the
+     * application for memory pressure callbacks.
+     * @param context any context, only its application context is kept
+     */
+    static synchronized EarthquakeCache getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            Resources resources = appContext.getResources();
+            long maxMemory = Runtime.getRuntime().maxMemory();
+            instance = new EarthquakeCache(new File(appContext.getCacheDir(), COLD_DIR_NAME),
+                    (int) (maxMemory * resources.getInteger(R.integer.cache_hot_heap_percent) / 100),
+                    (int) (maxMemory * resources.getInteger(R.integer.cache_warm_heap_percent) / 100),
+                    resources.getInteger(R.integer.cache_max_age_seconds) * 1000L,
+                    Executors.newSingleThreadExecutor());
+            appContext.registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Look up the list stored for the given query URL, promoting it back to the hot tier if it
+     * was found in a lower one. Disk reads happen outside the lock, so call this off the main
+     * thread.
+     * @param url the query URL
+     * @return a copy of the list of earthquakes, or null if nothing fresh is cached
+     */
+    List<Earthquake> get(String url) {
+        synchronized (this) {
+            boolean inHot = true;
+            Entry entry = hot.get(url);
+            if (entry == null) {
+                inHot = false;
+                byte[] bytes = warm.remove(url);
+                if (bytes != null) {
+                    entry = deserialize(bytes);
+                }
+            }
+
+            if (entry != null) {
+                if (!isFresh(entry)) {
+                    // Nothing older is kept in the lower tiers, so an expired entry is a miss
+                    hot.remove(url);
+                    misses++;
+                    return null;
+                }
+
+                if (inHot) {
+                    hotHits++;
+                } else {
+                    warmHits++;
+                    hot.put(url, entry);
+                }
+                return new ArrayList<>(entry.earthquakes);
+            }
+        }
+
+        Entry entry = readCold(url);
+
+        synchronized (this) {
+            // A put may have landed while the lock was released for the disk read, and that list
+            // is newer than anything on disk
+            Entry current = hot.get(url);
+            if (current != null && isFresh(current)) {
+                hotHits++;
+                return new ArrayList<>(current.earthquakes);
+            }
+
+            if (entry == null || !isFresh(entry)) {
+                misses++;
+                return null;
+            }
+
+            coldHits++;
+            hot.put(url, entry);
+            return new ArrayList<>(entry.earthquakes);
+        }
+    }
+
+    /**
+     * Store a copy of a freshly loaded list in the hot tier, dropping any older copy from the
+     * lower tiers. Empty lists are not stored, since they are what a failed parse returns.
+     * @param url the query URL
+     * @param earthquakes the list of earthquakes
+     */
+    synchronized void put(String url, List<Earthquake> earthquakes) {
+        if (url == null || earthquakes == null || earthquakes.isEmpty()) {
+            return;
+        }
+
+        warm.remove(url);
+        deleteCold(url);
+        hot.put(url, new Entry(new ArrayList<>(earthquakes), System.currentTimeMillis()));
+    }
+
+    /**
+     * Demote tiers according to how hard the system is pressed for memory. Only in memory work
+     * happens here, disk writes are handed to the disk executor.
+     * @param level the trim level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            // The process is next in line to be killed and the cold tier does not outlive it, so
+            // spilling would only hold memory and write files nobody reads
+            dropOnEvict = true;
+            hot.evictAll();
+            warm.evictAll();
+            dropOnEvict = false;
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            hot.evictAll();
+            warm.evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            hot.evictAll();
+            warm.trimToSize(warm.maxSize() / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            hot.trimToSize(hot.maxSize() / 2);
+        }
+
+        Log.d(LOG_TAG, "Trimmed to level " + level + ": " + this);
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Returns the number of lookups served by the hot tier.
+     */
+    synchronized int getHotHits() {
+        return hotHits;
+    }
+
+    /**
+     * Returns the number of lookups served by the warm tier.
+     */
+    synchronized int getWarmHits() {
+        return warmHits;
+    }
+
+    /**
+     * Returns the number of lookups served by the cold tier.
+     */
+    synchronized int getColdHits() {
+        return coldHits;
+    }
+
+    /**
+     * Returns the number of lookups that found nothing in any tier.
+     */
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of lists demoted from the hot tier to the warm tier.
+     */
+    synchronized int getHotEvictions() {
+        return hotEvictions;
+    }
+
+    /**
+     * Returns the number of lists demoted from the warm tier to disk.
+     */
+    synchronized int getWarmEvictions() {
+        return warmEvictions;
+    }
+
+    /**
+     * Returns the number of lists dropped from either tier when the process was about to be killed.
+     */
+    synchronized int getDrops() {
+        return drops;
+    }
+
+    /**
+     * Returns the estimated size in bytes of the hot tier.
+     */
+    synchronized int getHotSize() {
+        return hot.size();
+    }
+
+    /**
+     * Returns the size in bytes of the warm tier.
+     */
+    synchronized int getWarmSize() {
+        return warm.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EarthquakeCache[hot=" + hot.size() + "/" + hot.maxSize()
+                + " warm=" + warm.size() + "/" + warm.maxSize()
+                + " hits=" + hotHits + "/" + warmHits + "/" + coldHits
+                + " misses=" + misses
+                + " evictions=" + hotEvictions + "/" + warmEvictions
+                + " drops=" + drops + "]";
+    }
+
+    /**
+     * Estimate the heap usage of a list of earthquakes
+     * @param earthquakes the list of earthquakes
+     * @return the estimated size in bytes
+     */
+    private static int estimateSize(List<Earthquake> earthquakes) {
+        int size = OBJECT_OVERHEAD_BYTES;
+        for (Earthquake earthquake : earthquakes) {
+            // The earthquake itself, its two strings and their backing char arrays
+            size += 5 * OBJECT_OVERHEAD_BYTES + 16;
+            size += 2 * (earthquake.getLocation().length() + earthquake.getUrl().length());
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns whether the entry is younger than the max age.
+     */
+    private boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.loadedAt <= maxAgeMillis;
+    }
+
+    /**
+     * Write an entry into the compact form used by the warm and cold tiers
+     * @param entry the cached list
+     * @param out the stream to write to
+     * @throws IOException if the stream fails
+     */
+    private static void writeEntry(Entry entry, DataOutputStream out) throws IOException {
+        out.writeLong(entry.loadedAt);
+        out.writeInt(entry.earthquakes.size());
+        for (Earthquake earthquake : entry.earthquakes) {
+            out.writeDouble(earthquake.getMagnitude());
+            out.writeUTF(earthquake.getLocation());
+            out.writeLong(earthquake.getTimeInMilliseconds());
+            out.writeUTF(earthquake.getUrl());
+        }
+    }
+
+    /**
+     * Read an entry back from its compact form
+     * @param in the stream to read from
+     * @return the cached list
+     * @throws IOException if the stream fails or ends early
+     */
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        long loadedAt = in.readLong();
+        int count = in.readInt();
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double magnitude = in.readDouble();
+            String location = in.readUTF();
+            long time = in.readLong();
+            String url = in.readUTF();
+            earthquakes.add(new Earthquake(magnitude, location, time, url));
+        }
+
+        return new Entry(earthquakes, loadedAt);
+    }
+
+    /**
+     * Serialize an entry for the warm tier
+     * @param entry the cached list
+     * @return the serialized bytes, or null if the entry could not be written
+     */
+    private static byte[] serialize(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeEntry(entry, out);
+            out.flush();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem serializing the earthquake list", e);
+            return null;
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserialize an entry from the warm tier
+     * @param bytes the serialized bytes
+     * @return the cached list, or null if the bytes could not be read
+     */
+    private static Entry deserialize(byte[] bytes) {
+        try {
+            return readEntry(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem deserializing the earthquake list", e);
+            return null;
+        }
+    }
+
+    /**
+     * Spill serialized bytes from the warm tier to disk on the disk executor
+     * @param url the query URL
+     * @param bytes the serialized list
+     */
+    private void writeCold(final String url, final byte[] bytes) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                DataOutputStream out = openColdFile(url);
+                try {
+                    if (out != null) {
+                        out.write(bytes);
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the earthquake list to disk", e);
+                } finally {
+                    closeQuietly(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Create the cold file for a URL, prefixed with the URL so hash collisions can be detected
+     * @param url the query URL
+     * @return the stream to write the entry to, or null if the file could not be created
+     */
+    private DataOutputStream openColdFile(String url) {
+        if (!coldDir.isDirectory() && !coldDir.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create cache directory " + coldDir);
+            return null;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(coldFile(url))));
+            out.writeUTF(url);
+            return out;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem creating the cache file", e);
+            closeQuietly(out);
+            return null;
+        }
+    }
+
+    /**
+     * Read and remove a spilled entry on the disk executor, waiting for any pending spills first
+     * @param url the query URL
+     * @return the cached list, or null if it is not on disk
+     */
+    private Entry readCold(final String url) {
+        FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                File file = coldFile(url);
+                if (!file.isFile()) {
+                    return null;
+                }
+
+                DataInputStream in = null;
+                try {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    if (!url.equals(in.readUTF())) {
+                        return null;
+                    }
+
+                    Entry entry = readEntry(in);
+                    // The list is promoted back to the hot tier, so the file is no longer needed
+                    file.delete();
+                    return entry;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem reading the earthquake list from disk", e);
+                    return null;
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+        });
+        diskExecutor.execute(task);
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake list from disk", e);
+            return null;
+        }
+    }
+
+    private void deleteCold(final String url) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                coldFile(url).delete();
+            }
+        });
+    }
+
+    private File coldFile(String url) {
+        return new File(coldDir, Integer.toHexString(url.hashCode()) + ".bin");
+    }
+
+    /**
+     * Remove files left over by a previous process, the cold tier only lives as long as the cache
+     */
+    private void clearColdDir() {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = coldDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing cache stream", e);
+            }
+        }
+    }
+
+    /**
+     * A cached list and the time it was loaded
+     */
+    private static class Entry {
+
+        final List<Earthquake> earthquakes;
+
+        final long loadedAt;
+
+        Entry(List<Earthquake> earthquakes, long loadedAt) {
+            this.earthquakes = earthquakes;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
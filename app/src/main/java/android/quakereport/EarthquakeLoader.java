@@ -12,6 +12,11 @@ class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
      */
     private String url;
 
+    /**
+     * Cache of previously loaded results
+     */
+    private EarthquakeCache cache;
+
     /**
      * Construsts a new instance of {@link EarthquakeLoader}
      * @param context of the activity
@@ -20,6 +25,7 @@ class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
     EarthquakeLoader(Context context, String url) {
         super(context);
         this.url = url;
+        this.cache = EarthquakeCache.getInstance(context);
     }
 
     /**
@@ -40,7 +46,15 @@ class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
             return null;
         }
 
+        // Serve the list from the cache if this query has been loaded before
+        List<Earthquake> earthquakes = cache.get(url);
+        if (earthquakes != null) {
+            return earthquakes;
+        }
+
         // Perform the network requests, parse the response, and then extract a list of earthquakes
-        return QueryUtils.fetchEarthquakeData(url);
+        earthquakes = QueryUtils.fetchEarthquakeData(url);
+        cache.put(url, earthquakes);
+        return earthquakes;
     }
 }
@@ -0,0 +1,305 @@
+package android.quakereport;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EarthquakeCacheTest {
+
+    /**
+     * Estimated hot size of a list with one earthquake from {@link #createList(String)}
+     */
+    private static final int HOT_LIST_BYTES = 142;
+
+    /**
+     * Serialized size of a list with one earthquake from {@link #createList(String)}
+     */
+    private static final int WARM_LIST_BYTES = 47;
+
+    /**
+     * Runs disk work on the calling thread so every spill has finished when a call returns
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File coldDir;
+
+    private EarthquakeCache cache;
+
+    @Before
+    public void setUp() {
+        coldDir = new File(temporaryFolder.getRoot(), "earthquakes");
+        // Room for two lists in the hot tier and one in the warm tier
+        cache = createCache(2 * HOT_LIST_BYTES, WARM_LIST_BYTES, 60000);
+    }
+
+    @Test
+    public void getReturnsCopyOfStoredList() {
+        cache.put("a", createList("a"));
+
+        // The adapter clears the list it is given, which must not empty the cache
+        cache.get("a").clear();
+
+        assertEquals(1, cache.get("a").size());
+        assertEquals(2, cache.getHotHits());
+    }
+
+    @Test
+    public void emptyAndMissingListsAreMisses() {
+        cache.put("a", Collections.<Earthquake>emptyList());
+        cache.put("b", null);
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void expiredListIsMiss() {
+        cache = createCache(2 * HOT_LIST_BYTES, WARM_LIST_BYTES, -1);
+        cache.put("a", createList("a"));
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getHotHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void overBudgetDemotesHotToWarmToCold() {
+        cache.put("a", createList("a"));
+        cache.put("b", createList("b"));
+        cache.put("c", createList("c"));
+        assertEquals(1, cache.getHotEvictions());
+        assertEquals(0, cache.getWarmEvictions());
+
+        cache.put("d", createList("d"));
+        assertEquals(2, cache.getHotEvictions());
+        assertEquals(1, cache.getWarmEvictions());
+        assertEquals(1, coldDir.listFiles().length);
+
+        // "b" comes back from the warm tier, "a" from disk
+        assertNotNull(cache.get("b"));
+        assertEquals(1, cache.getWarmHits());
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.getColdHits());
+    }
+
+    @Test
+    public void getPromotesToHotTier() {
+        // Leave room in the warm tier after it is halved
+        cache = createCache(2 * HOT_LIST_BYTES, 2 * WARM_LIST_BYTES, 60000);
+        cache.put("a", createList("a"));
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("a"));
+
+        assertEquals(1, cache.getWarmHits());
+        assertEquals(1, cache.getHotHits());
+    }
+
+    @Test
+    public void runningLowTrimsHalfOfHotTier() {
+        cache.put("a", createList("a"));
+        cache.put("b", createList("b"));
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+        assertEquals(1, cache.getHotEvictions());
+        assertNotNull(cache.get("b"));
+        assertEquals(1, cache.getHotHits());
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.getWarmHits());
+    }
+
+    @Test
+    public void backgroundDemotesHotTierToWarmAndHalvesWarmTier() {
+        cache = createCache(2 * HOT_LIST_BYTES, 4 * WARM_LIST_BYTES, 60000);
+        cache.put("a", createList("a"));
+        cache.put("b", createList("b"));
+        cache.put("c", createList("c"));
+        assertEquals(WARM_LIST_BYTES, cache.getWarmSize());
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        // All three lists left the hot tier, and the warm tier only keeps half its budget
+        assertEquals(0, cache.getHotSize());
+        assertEquals(3, cache.getHotEvictions());
+        assertEquals(2 * WARM_LIST_BYTES, cache.getWarmSize());
+        assertEquals(1, cache.getWarmEvictions());
+        assertEquals(1, coldDir.listFiles().length);
+    }
+
+    @Test
+    public void moderateSpillsWarmTierToDisk() {
+        cache.put("a", createList("a"));
+        cache.put("b", createList("b"));
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
+        assertEquals(0, cache.getHotSize());
+        assertEquals(0, cache.getWarmSize());
+        assertEquals(2, coldDir.listFiles().length);
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertEquals(2, cache.getColdHits());
+    }
+
+    @Test
+    public void completeDropsEverything() {
+        cache.put("a", createList("a"));
+        cache.put("b", createList("b"));
+        cache.put("c", createList("c"));
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        // Nothing is spilled, since the cold tier does not outlive the process
+        assertEquals(3, cache.getDrops());
+        assertEquals(1, cache.getHotEvictions());
+        assertEquals(0, cache.getWarmEvictions());
+        assertEquals(0, cache.getHotSize());
+        assertEquals(0, cache.getWarmSize());
+        assertFalse(coldDir.exists());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void lowMemoryDropsEverything() {
+        cache.put("a", createList("a"));
+
+        cache.onLowMemory();
+
+        assertEquals(1, cache.getDrops());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void putDuringDiskReadIsNotReplacedByOlderList() throws Exception {
+        GatedExecutor executor = new GatedExecutor();
+        cache = new EarthquakeCache(coldDir, HOT_LIST_BYTES, 0, 60000, executor);
+        cache.put("a", createList("a"));
+        cache.put("b", createList("b"));
+        executor.awaitIdle();
+        assertEquals(1, coldDir.listFiles().length);
+
+        // Hold the disk thread so the read of "a" is queued but has not run
+        executor.close();
+        final List<List<Earthquake>> results = new ArrayList<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results.add(cache.get("a"));
+            }
+        });
+        reader.start();
+        executor.awaitQueued();
+
+        List<Earthquake> fresh = new ArrayList<>();
+        fresh.add(new Earthquake(7.5, "Placea", 1475280000000L, "http://xa"));
+        cache.put("a", fresh);
+
+        executor.open();
+        reader.join();
+
+        assertEquals(7.5, results.get(0).get(0).getMagnitude(), 0);
+        assertEquals(7.5, cache.get("a").get(0).getMagnitude(), 0);
+        assertEquals(0, cache.getColdHits());
+    }
+
+    private EarthquakeCache createCache(int hotBudgetBytes, int warmBudgetBytes, long maxAgeMillis) {
+        return new EarthquakeCache(coldDir, hotBudgetBytes, warmBudgetBytes, maxAgeMillis, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * Create a list with a single earthquake whose strings have the same length for every key
+     */
+    private static List<Earthquake> createList(String key) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        earthquakes.add(new Earthquake(4.5, "Place" + key, 1475280000000L, "http://x" + key));
+        return earthquakes;
+    }
+
+    /**
+     * Runs disk work on a single background thread that can be held behind a gate
+     */
+    private static class GatedExecutor implements Executor {
+
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        private final Semaphore queued = new Semaphore(0);
+
+        private CountDownLatch gate;
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(command);
+            queued.release();
+        }
+
+        /**
+         * Hold every task submitted from now on until {@link #open()}
+         */
+        void close() {
+            gate = new CountDownLatch(1);
+            final CountDownLatch currentGate = gate;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        currentGate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            queued.drainPermits();
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        /**
+         * Wait until a task has been submitted since the gate was closed
+         */
+        void awaitQueued() throws InterruptedException {
+            queued.acquire();
+        }
+
+        /**
+         * Wait until every task submitted so far has run
+         */
+        void awaitIdle() throws Exception {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FeedGeneratorTest {
+
+    private static final int EVENT_COUNT = 25;
+
+    @Test
+    public void compactFeedParses() throws Exception {
+        assertFeedParses(false);
+    }
+
+    @Test
+    public void prettyFeedParses() throws Exception {
+        assertFeedParses(true);
+    }
+
+    @Test(expected = JSONException.class)
+    public void truncatedCompactFeedDoesNotParse() throws Exception {
+        new JSONObject(write(new FeedGenerator(EVENT_COUNT, false, 42L), EVENT_COUNT / 2));
+    }
+
+    @Test(expected = JSONException.class)
+    public void truncatedPrettyFeedDoesNotParse() throws Exception {
+        new JSONObject(write(new FeedGenerator(EVENT_COUNT, true, 42L), EVENT_COUNT / 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyFeedCannotBeTruncated() throws Exception {
+        write(new FeedGenerator(0, false, 42L), 0);
+    }
+
+    @Test
+    public void sameSeedWritesSameFeed() throws Exception {
+        assertEquals(write(new FeedGenerator(EVENT_COUNT, false, 7L), -1),
+                write(new FeedGenerator(EVENT_COUNT, false, 7L), -1));
+    }
+
+    private static void assertFeedParses(boolean pretty) throws Exception {
+        String feed = write(new FeedGenerator(EVENT_COUNT, pretty, 42L), -1);
+        assertEquals(pretty, feed.contains("\n"));
+
+        JSONArray features = new JSONObject(feed).getJSONArray("features");
+        assertEquals(EVENT_COUNT, features.length());
+
+        // The same properties QueryUtils reads from every feature
+        for (int i = 0; i < features.length(); i++) {
+            JSONObject properties = features.getJSONObject(i).getJSONObject("properties");
+            double magnitude = properties.getDouble("mag");
+            assertTrue(magnitude >= 2.5 && magnitude <= 9.5);
+            assertFalse(properties.getString("place").isEmpty());
+            assertTrue(properties.getLong("time") > 0);
+            assertTrue(properties.getString("url").startsWith("http://"));
+        }
+    }
+
+    private static String write(FeedGenerator generator, int truncateAt) throws IOException {
+        StringWriter writer = new StringWriter();
+        generator.write(writer, truncateAt);
+        return writer.toString();
+    }
+}